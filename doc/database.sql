@@ -77,4 +77,122 @@ create index on wind (measurementTime);
 copy wind (stationId, measurementTime, meanWindSpeed, meanWindDirection) from
 'wind.csv' with delimiter ';' csv header;
 
+-- Daily and monthly aggregates computed during the import
+
+drop table airtemperature_daily;
+create table airtemperature_daily (
+  stationId integer not null,
+  measurementDate date not null,
+  minTemperature double precision,
+  maxTemperature double precision,
+  meanTemperature double precision,
+  hours smallint not null,
+  constraint airtemperature_daily_stationId_fkey foreign key (stationId) references weatherstation (stationId)
+);
+create index on airtemperature_daily (stationId);
+create index on airtemperature_daily (measurementDate);
+
+copy airtemperature_daily (stationId, measurementDate, minTemperature, maxTemperature, meanTemperature, hours) from
+'air_temperature_daily.csv' with delimiter ';' csv header;
+
+drop table airtemperature_monthly;
+create table airtemperature_monthly (
+  stationId integer not null,
+  measurementMonth date not null,
+  minTemperature double precision,
+  maxTemperature double precision,
+  meanTemperature double precision,
+  hours smallint not null,
+  constraint airtemperature_monthly_stationId_fkey foreign key (stationId) references weatherstation (stationId)
+);
+create index on airtemperature_monthly (stationId);
+create index on airtemperature_monthly (measurementMonth);
+
+copy airtemperature_monthly (stationId, measurementMonth, minTemperature, maxTemperature, meanTemperature, hours) from
+'air_temperature_monthly.csv' with delimiter ';' csv header;
+
+drop table precipitation_daily;
+create table precipitation_daily (
+  stationId integer not null,
+  measurementDate date not null,
+  height double precision,
+  hours smallint not null,
+  constraint precipitation_daily_stationId_fkey foreign key (stationId) references weatherstation (stationId)
+);
+create index on precipitation_daily (stationId);
+create index on precipitation_daily (measurementDate);
+
+copy precipitation_daily (stationId, measurementDate, height, hours) from
+'precipitation_daily.csv' with delimiter ';' csv header;
+
+drop table precipitation_monthly;
+create table precipitation_monthly (
+  stationId integer not null,
+  measurementMonth date not null,
+  height double precision,
+  hours smallint not null,
+  constraint precipitation_monthly_stationId_fkey foreign key (stationId) references weatherstation (stationId)
+);
+create index on precipitation_monthly (stationId);
+create index on precipitation_monthly (measurementMonth);
+
+copy precipitation_monthly (stationId, measurementMonth, height, hours) from
+'precipitation_monthly.csv' with delimiter ';' csv header;
+
+drop table pressure_daily;
+create table pressure_daily (
+  stationId integer not null,
+  measurementDate date not null,
+  meanPressureNN double precision,
+  hours smallint not null,
+  constraint pressure_daily_stationId_fkey foreign key (stationId) references weatherstation (stationId)
+);
+create index on pressure_daily (stationId);
+create index on pressure_daily (measurementDate);
+
+copy pressure_daily (stationId, measurementDate, meanPressureNN, hours) from
+'pressure_daily.csv' with delimiter ';' csv header;
+
+drop table pressure_monthly;
+create table pressure_monthly (
+  stationId integer not null,
+  measurementMonth date not null,
+  meanPressureNN double precision,
+  hours smallint not null,
+  constraint pressure_monthly_stationId_fkey foreign key (stationId) references weatherstation (stationId)
+);
+create index on pressure_monthly (stationId);
+create index on pressure_monthly (measurementMonth);
+
+copy pressure_monthly (stationId, measurementMonth, meanPressureNN, hours) from
+'pressure_monthly.csv' with delimiter ';' csv header;
+
+drop table wind_daily;
+create table wind_daily (
+  stationId integer not null,
+  measurementDate date not null,
+  meanWindSpeed double precision,
+  hours smallint not null,
+  constraint wind_daily_stationId_fkey foreign key (stationId) references weatherstation (stationId)
+);
+create index on wind_daily (stationId);
+create index on wind_daily (measurementDate);
+
+copy wind_daily (stationId, measurementDate, meanWindSpeed, hours) from
+'wind_daily.csv' with delimiter ';' csv header;
+
+drop table wind_monthly;
+create table wind_monthly (
+  stationId integer not null,
+  measurementMonth date not null,
+  meanWindSpeed double precision,
+  hours smallint not null,
+  constraint wind_monthly_stationId_fkey foreign key (stationId) references weatherstation (stationId)
+);
+create index on wind_monthly (stationId);
+create index on wind_monthly (measurementMonth);
+
+copy wind_monthly (stationId, measurementMonth, meanWindSpeed, hours) from
+'wind_monthly.csv' with delimiter ';' csv header;
+
 alter table weatherstation owner to dynaserv;
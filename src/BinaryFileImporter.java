@@ -1,29 +1,46 @@
-import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileReader;
+import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.GZIPInputStream;
 
 /**
- * Importer for the binary file format.
+ * Importer for the binary file format and its ASCII export.
  */
 public class BinaryFileImporter {
 
-    private static final String FILE_REGEX = "raa01-rw_10000-(\\d{10})-dwd---bin";
+    static final String FILE_REGEX = "raa01-rw_10000-(\\d{10})-dwd---bin";
 
-    private static final String FILE_DATE_FORMAT = "yyMMddHHmm";
+    static final String ASCII_FILE_REGEX = "RW_(\\d{8}-\\d{4})\\.asc";
+
+    private static final Pattern BINARY_PATTERN = Pattern.compile(FILE_REGEX);
+
+    private static final Pattern ASCII_PATTERN = Pattern.compile(ASCII_FILE_REGEX);
 
     private static final byte ETX = 0x03;
 
+    static final String RADAR_MANIFEST = "radar_manifest.csv";
+
     static byte[] readBinaryFile(File file) throws IOException {
         InputStream in = file.getName().endsWith(".gz")
             ? new GZIPInputStream(new FileInputStream(file))
@@ -46,8 +63,12 @@ public class BinaryFileImporter {
         return null;
     }
 
-    static int[][] getValues(byte[] bytes, int offset) {
-        int[][] values = new int[Grid.SIZE][Grid.SIZE];
+    /**
+     * Decodes the values into a flat array of Grid.SIZE * Grid.SIZE entries,
+     * row by row starting with the northernmost row. The file starts with the
+     * southernmost row, missing values become -1.
+     */
+    static void getValues(byte[] bytes, int offset, int[] values) {
         int x = 0;
         int y = Grid.SIZE - 1;
         for (int i = offset; i < bytes.length; i += 2) {
@@ -56,69 +77,248 @@ public class BinaryFileImporter {
             int value = bits & 0xfff;
             if (type == 0x02)
                 value = -1;
-            values[y][x] = value;
+            values[y * Grid.SIZE + x] = value;
             if (++x == Grid.SIZE) {
                 x = 0;
                 y--;
             }
         }
-        return values;
     }
 
-    // Test
-    static boolean isEquals(int[][] values, int[][] values2) {
-        for (int i = 0; i < values.length; i++)
-            for (int j = 0; j < values.length; j++)
-                if (values[i][j] != values2[i][j])
-                    return false;
-        return true;
+    /**
+     * Reads a grid in the RADOLAN ASCII format into a flat array, identical
+     * to what getValues(byte[], int, int[]) yields for the binary file: the
+     * header lines are parsed for their size and NODATA value, missing values
+     * become -1. The digits are scanned straight from the mapped file.
+     */
+    static void readAsciiFile(File file, int[] values) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                channel.size());
+            int limit = buffer.limit();
+            int position = 0;
+            int noData = -1;
+
+            // Header lines start with a letter, e.g. "NODATA_value -1"
+            while (position < limit && Character.isLetter(buffer.get(position))) {
+                int end = position;
+                while (end < limit && buffer.get(end) != '\n')
+                    end++;
+                byte[] bytes = new byte[end - position];
+                buffer.position(position);
+                buffer.get(bytes);
+                String[] parts = new String(bytes, "US-ASCII").trim().split("\\s+");
+                if (parts.length == 2) {
+                    String key = parts[0].toLowerCase(Locale.ROOT);
+                    if ((key.equals("ncols") || key.equals("nrows"))
+                        && Integer.parseInt(parts[1]) != Grid.SIZE)
+                        throw new IOException("Unexpected grid size " + parts[1] + " in " + file);
+                    if (key.equals("nodata_value"))
+                        noData = Integer.parseInt(parts[1]);
+                }
+                position = end + 1;
+            }
+
+            int count = 0;
+            int value = 0;
+            boolean negative = false, inNumber = false;
+            for (; position <= limit; position++) {
+                byte b = position < limit ? buffer.get(position) : (byte) ' ';
+                if (b >= '0' && b <= '9') {
+                    value = value * 10 + b - '0';
+                    inNumber = true;
+                } else if (b == '-' && !inNumber && !negative) {
+                    negative = true;
+                } else if (b == ' ' || b == '\n' || b == '\r' || b == '\t') {
+                    if (!inNumber) {
+                        if (negative)
+                            throw new IOException("Invalid value in " + file);
+                        continue;
+                    }
+                    if (count == values.length)
+                        throw new IOException("More than " + values.length + " values in " + file);
+                    if (negative)
+                        value = -value;
+                    values[count++] = value == noData ? -1 : value;
+                    value = 0;
+                    negative = inNumber = false;
+                } else {
+                    throw new IOException("Unexpected character '" + (char) b + "' in " + file);
+                }
+            }
+            if (count != values.length)
+                throw new IOException("Only " + count + " values in " + file);
+        } finally {
+            channel.close();
+        }
     }
 
-    // Test
-    private static int[][] readAsciiFile(String dir, Date date) throws IOException {
-        DateFormat dateFormat = new SimpleDateFormat("yyyyMMdd-HHmm");
-        File file = new File(dir + "/RW_" + dateFormat.format(date) + ".asc");
-        String line;
-        BufferedReader reader = new BufferedReader(new FileReader(file));
-        boolean start = false;
-        int[][] values = new int[Grid.SIZE][Grid.SIZE];
-        int i = 0;
-        while ((line = reader.readLine()) != null) {
-            if (!start) {
-                start = line.startsWith("NODATA");
-                continue;
+    static boolean isRadarFile(String fileName) {
+        return BINARY_PATTERN.matcher(fileName).find()
+            || ASCII_PATTERN.matcher(fileName).find();
+    }
+
+    /**
+     * Returns the hour of a binary or ASCII file as yyMMddHH number.
+     */
+    static long getHour(String fileName) {
+        Matcher matcher = BINARY_PATTERN.matcher(fileName);
+        if (matcher.find())
+            return Long.parseLong(matcher.group(1)) / 100;
+        matcher = ASCII_PATTERN.matcher(fileName);
+        matcher.find();
+        return Long.parseLong(matcher.group(1).replace("-", "").substring(2, 10));
+    }
+
+    /**
+     * Returns the name of the ASCII file written for a binary or ASCII file.
+     * The stamps of both are UTC, so the digits are taken over as they are
+     * instead of going through a Date in the default time zone.
+     */
+    static String getOutputName(String fileName) {
+        Matcher matcher = BINARY_PATTERN.matcher(fileName);
+        if (matcher.find()) {
+            String stamp = matcher.group(1);
+            return "RW_20" + stamp.substring(0, 6) + "-" + stamp.substring(6) + ".asc";
+        }
+        matcher = ASCII_PATTERN.matcher(fileName);
+        matcher.find();
+        return "RW_" + matcher.group(1) + ".asc";
+    }
+
+    /**
+     * Decodes a binary or ASCII file into the flat array.
+     */
+    static void decode(File file, int[] values) throws IOException {
+        if (ASCII_PATTERN.matcher(file.getName()).find()) {
+            readAsciiFile(file, values);
+            return;
+        }
+        byte[] bytes = readBinaryFile(file);
+        String header = getHeader(bytes);
+        if (header == null)
+            throw new IOException("No header in " + file);
+        getValues(bytes, header.length() + 3, values);
+    }
+
+    /**
+     * Lists the binary and ASCII files in inputDir, only those of the shard
+     * unless it is null. Of several files for the same hour only one is
+     * returned, a binary one if there is any, so that every grid is decoded
+     * and written once.
+     */
+    static File[] listRadarFiles(String inputDir, final Shard shard) {
+        File[] files = new File(inputDir).listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return isRadarFile(name)
+                    && (shard == null || shard.containsHour(getHour(name)));
             }
-            String[] parts = line.split(" ");
-            for (int j = 0; j < parts.length; j++)
-                values[i][j] = Integer.parseInt(parts[j]);
-            i++;
+        });
+        if (files == null)
+            return new File[0];
+        Arrays.sort(files);
+        Map<Long, File> hours = new TreeMap<Long, File>();
+        for (File file : files) {
+            long hour = getHour(file.getName());
+            File other = hours.get(hour);
+            if (other == null || (ASCII_PATTERN.matcher(other.getName()).find()
+                && BINARY_PATTERN.matcher(file.getName()).find()))
+                hours.put(hour, file);
+        }
+        return hours.values().toArray(new File[hours.size()]);
+    }
+
+    static int importDirectory(String inputDir, String outputDir, int threads)
+        throws InterruptedException, ExecutionException {
+
+        return importDirectory(inputDir, outputDir, threads, null).length;
+    }
+
+    /**
+     * Decodes the files listed by listRadarFiles in parallel and writes each
+     * of them as RW_yyyyMMdd-HHmm.asc into outputDir. With a shard only the
+     * files of its hours are imported. Returns the files imported.
+     */
+    static File[] importDirectory(String inputDir, final String outputDir, int threads,
+        Shard shard) throws InterruptedException, ExecutionException {
+
+        final File[] files = listRadarFiles(inputDir, shard);
+        if (files.length == 0)
+            return files;
+        new File(outputDir).mkdirs();
+
+        final AtomicInteger next = new AtomicInteger();
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executorService.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    GridWriter writer = new GridWriter();
+                    int[] values = new int[Grid.SIZE * Grid.SIZE];
+                    int i;
+                    while ((i = next.getAndIncrement()) < files.length) {
+                        decode(files[i], values);
+                        writer.write(outputDir + "/" + getOutputName(files[i].getName()),
+                            values, GridWriter.NODATA);
+                    }
+                    return null;
+                }
+            }));
         }
-        reader.close();
-        return values;
+        executorService.shutdown();
+        for (Future<Void> future : futures)
+            future.get();
+        return files;
     }
 
-    public static void main(String[] args) throws IOException, ParseException {
-        String binaryDir = "201601/bin";
-        String asciiDir = "201601/asc";
-        
-        DateFormat dateFormat = new SimpleDateFormat(FILE_DATE_FORMAT);
-        Pattern pattern = Pattern.compile(FILE_REGEX);
-        
+    /**
+     * Imports the files in radolan into radolan_ascii. With --shard i/n only
+     * the files that belong to the shard are imported into its directory
+     * along with a manifest. With --compare the binary files are compared
+     * with their ASCII counterparts instead.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException,
+        ExecutionException {
+
+        if (Arrays.asList(args).contains("--compare")) {
+            compare("201601/bin", "201601/asc");
+            return;
+        }
+
+        // Optional --shard i/n, each shard writes to its own directory
+        Shard shard = Shard.fromArgs(args);
+        String outputDir = ".";
+        if (shard != null)
+            outputDir = shard.directoryName();
+        File[] files = importDirectory("radolan", outputDir + "/radolan_ascii",
+            Runtime.getRuntime().availableProcessors(), shard);
+        System.out.println(files.length + " files imported");
+        if (shard != null) {
+            Map<String, Long> inputs = new LinkedHashMap<String, Long>();
+            for (File file : files)
+                inputs.put("radolan/" + file.getName(), (long) Grid.SIZE * Grid.SIZE);
+            new File(outputDir).mkdirs();
+            shard.writeManifest(outputDir + "/" + RADAR_MANIFEST, inputs);
+        }
+    }
+
+    // Test
+    static void compare(String binaryDir, String asciiDir) throws IOException {
         File[] files = new File(binaryDir).listFiles();
+        int[] values = new int[Grid.SIZE * Grid.SIZE];
+        int[] values2 = new int[Grid.SIZE * Grid.SIZE];
         for (File file : files) {
-            String fileName = file.getName();
-            Matcher matcher = pattern.matcher(fileName);
-            matcher.find();
-            Date date = dateFormat.parse(matcher.group(1));
-            
             byte[] bytes = readBinaryFile(file);
             String header = getHeader(bytes);
             assert header != null : "header is null";
             System.out.println(header);
             
-            int[][] values = getValues(bytes, header.length() + 3);
-            int[][] values2 = readAsciiFile(asciiDir, date); 
-            assert isEquals(values, values2);
+            getValues(bytes, header.length() + 3, values);
+            readAsciiFile(new File(asciiDir, getOutputName(file.getName())), values2);
+            assert Arrays.equals(values, values2);
         }
     }
 
@@ -0,0 +1,288 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Append-only CSV writer that formats values directly into a reusable byte
+ * buffer and hands it to a {@link FileChannel} in large block aligned writes.
+ * The output is identical to the former String based writers, i.e. numbers
+ * look like {@link Double#toString(double)} and {@link Integer#toString(int)},
+ * timestamps like {@link ImportWeatherData#CSV_DATE_TIME_FORMAT} in the default
+ * time zone and lines end with the platform line separator.
+ */
+public class CsvWriter implements Closeable {
+
+    static final int BUFFER_SIZE = 1 << 20;
+
+    static final int BLOCK_SIZE = 4096;
+
+    // Upper bound for the length of a single line, see ensureCapacity()
+    static final int MAX_LINE_LENGTH = 256;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    private static final long MILLIS_PER_MINUTE = 60L * 1000;
+
+    private static final long[] POWERS_OF_TEN = {
+        1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L
+    };
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final byte[] bytes;
+    private final byte[] lineSeparator;
+    private final TimeZone timeZone;
+    private int position;
+
+    // Number of lines written so far, including the header
+    long lines;
+
+    // Cache for the most recently formatted timestamp
+    private long lastTime = Long.MIN_VALUE;
+    private final byte[] lastDateTime = new byte[16];
+
+    /**
+     * Opens the given file for appending. The header line is only written if
+     * the file did not exist before.
+     */
+    CsvWriter(String fileName, String header) throws IOException {
+        File file = new File(fileName);
+        boolean firstLine = !file.exists();
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        bytes = new byte[BUFFER_SIZE];
+        buffer = ByteBuffer.wrap(bytes);
+        lineSeparator = System.getProperty("line.separator").getBytes(UTF_8);
+        timeZone = TimeZone.getDefault();
+        if (firstLine) {
+            writeString(header);
+            newLine();
+        }
+    }
+
+    /**
+     * Makes sure that at least one more line fits into the buffer, which is
+     * why the single value writers below do not have to check any bounds.
+     */
+    private void ensureCapacity() throws IOException {
+        if (position > BUFFER_SIZE - MAX_LINE_LENGTH)
+            flush(false);
+    }
+
+    void writeString(String s) throws IOException {
+        byte[] b = s.getBytes(UTF_8);
+        if (position + b.length > BUFFER_SIZE)
+            flush(true);
+        if (b.length > BUFFER_SIZE) {
+            channel.write(ByteBuffer.wrap(b));
+            return;
+        }
+        System.arraycopy(b, 0, bytes, position, b.length);
+        position += b.length;
+    }
+
+    void writeSeparator() {
+        bytes[position++] = ';';
+    }
+
+    void newLine() throws IOException {
+        for (byte b : lineSeparator)
+            bytes[position++] = b;
+        lines++;
+        ensureCapacity();
+    }
+
+    void writeInt(int value) {
+        if (value == Integer.MIN_VALUE) {
+            writeAscii(Integer.toString(value));
+            return;
+        }
+        if (value < 0) {
+            bytes[position++] = '-';
+            value = -value;
+        }
+        writeDigits(value);
+    }
+
+    /**
+     * Writes a double the way {@link Double#toString(double)} does. DWD values
+     * have at most one decimal place, those are formatted from their fixed
+     * point representation; everything else falls back to the JDK.
+     */
+    void writeDecimal(double value) {
+        if (value == 0) {
+            if (Double.doubleToRawLongBits(value) != 0)
+                bytes[position++] = '-';
+            bytes[position++] = '0';
+            bytes[position++] = '.';
+            bytes[position++] = '0';
+            return;
+        }
+        long tenths = Math.round(value * 10);
+        if (tenths / 10.0 != value || tenths <= -100000000L || tenths >= 100000000L) {
+            writeAscii(Double.toString(value));
+            return;
+        }
+        if (tenths < 0) {
+            bytes[position++] = '-';
+            tenths = -tenths;
+        }
+        writeDigits((int) (tenths / 10));
+        bytes[position++] = '.';
+        bytes[position++] = (byte) ('0' + tenths % 10);
+    }
+
+    /**
+     * Writes a double rounded to the given number of decimal places, always
+     * printing all of them, e.g. 12.30 for scale 2.
+     */
+    void writeDecimal(double value, int scale) {
+        long factor = POWERS_OF_TEN[scale];
+        long scaled = Math.round(value * factor);
+        if (Math.abs(scaled) >= Long.MAX_VALUE / 10 || Double.isNaN(value)) {
+            writeAscii(Double.toString(value));
+            return;
+        }
+        if (scaled < 0) {
+            bytes[position++] = '-';
+            scaled = -scaled;
+        }
+        writeDigits(scaled / factor);
+        if (scale == 0)
+            return;
+        bytes[position++] = '.';
+        long fraction = scaled % factor;
+        for (int i = position + scale - 1; i >= position; i--) {
+            bytes[i] = (byte) ('0' + fraction % 10);
+            fraction /= 10;
+        }
+        position += scale;
+    }
+
+    /**
+     * Writes a date given as yyyyMMdd number as yyyy-MM-dd.
+     */
+    void writeDate(int yearMonthDay) {
+        put(bytes, position, yearMonthDay / 10000, 4);
+        bytes[position + 4] = '-';
+        put(bytes, position + 5, yearMonthDay / 100 % 100, 2);
+        bytes[position + 7] = '-';
+        put(bytes, position + 8, yearMonthDay % 100, 2);
+        position += 10;
+    }
+
+    /**
+     * Writes a timestamp as yyyy-MM-dd HH:mm in the default time zone.
+     */
+    void writeDateTime(Date date) {
+        long time = date.getTime();
+        if (time != lastTime) {
+            formatDateTime(time + timeZone.getOffset(time), lastDateTime);
+            lastTime = time;
+        }
+        System.arraycopy(lastDateTime, 0, bytes, position, lastDateTime.length);
+        position += lastDateTime.length;
+    }
+
+    /**
+     * Writes out all complete blocks. With all set the remainder is written as
+     * well, otherwise it is moved to the start of the buffer.
+     */
+    void flush(boolean all) throws IOException {
+        int length = all ? position : position - position % BLOCK_SIZE;
+        buffer.clear();
+        buffer.limit(length);
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        System.arraycopy(bytes, length, bytes, 0, position - length);
+        position -= length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush(true);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void writeAscii(String s) {
+        for (int i = 0; i < s.length(); i++)
+            bytes[position++] = (byte) s.charAt(i);
+    }
+
+    private void writeDigits(long value) {
+        int end = position + stringSize(value);
+        int i = end;
+        do {
+            bytes[--i] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        position = end;
+    }
+
+    private static int stringSize(long value) {
+        int size = 1;
+        while (value >= 10) {
+            value /= 10;
+            size++;
+        }
+        return size;
+    }
+
+    // Proleptic Gregorian calendar, valid for all dates since 1583
+    private static void formatDateTime(long localTime, byte[] out) {
+        long days = localTime / MILLIS_PER_DAY;
+        long millisOfDay = localTime % MILLIS_PER_DAY;
+        if (millisOfDay < 0) {
+            days--;
+            millisOfDay += MILLIS_PER_DAY;
+        }
+        int minuteOfDay = (int) (millisOfDay / MILLIS_PER_MINUTE);
+        int yearMonthDay = toYearMonthDay(days);
+
+        put(out, 0, yearMonthDay / 10000, 4);
+        out[4] = '-';
+        put(out, 5, yearMonthDay / 100 % 100, 2);
+        out[7] = '-';
+        put(out, 8, yearMonthDay % 100, 2);
+        out[10] = ' ';
+        put(out, 11, minuteOfDay / 60, 2);
+        out[13] = ':';
+        put(out, 14, minuteOfDay % 60, 2);
+    }
+
+    /**
+     * Converts days since 1970-01-01 into a yyyyMMdd number (H. Hinnant's
+     * civil_from_days).
+     */
+    static int toYearMonthDay(long days) {
+        long z = days + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524
+            - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        int year = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+        return year * 10000 + month * 100 + day;
+    }
+
+    private static void put(byte[] out, int offset, int value, int digits) {
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            out[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writer for grids of {@link Grid#SIZE} x {@link Grid#SIZE} values in the
+ * layout of the RADOLAN ASCII files, i.e. a short header followed by one line
+ * of space separated values per row starting with the northernmost row. The
+ * values are expected in a flat array in the same order, as filled by
+ * {@link BinaryFileImporter#getValues(byte[], int, int[])}. Instances reuse
+ * their buffer and are not thread safe.
+ */
+public class GridWriter {
+
+    // Missing values of the RADOLAN products as decoded by BinaryFileImporter
+    static final int NODATA = -1;
+
+    // ncols/nrows, lower left corner and cell size in meters, followed by
+    // the NODATA_value line of the grid written
+    static final String[] HEADER = {
+        "ncols " + Grid.SIZE,
+        "nrows " + Grid.SIZE,
+        "xllcorner " + Math.round(Grid.LEFT * 1000),
+        "yllcorner " + Math.round(Grid.BOTTOM * 1000),
+        "cellsize " + Math.round(Grid.GRID_SIZE * 1000)
+    };
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    // Sign and ten digits plus separator
+    private static final int MAX_VALUE_LENGTH = 12;
+
+    private final byte[] bytes = new byte[BUFFER_SIZE];
+    private final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    private final byte[] lineSeparator = System.getProperty("line.separator").getBytes();
+    private int position;
+
+    /**
+     * Writes the values with noData as the NODATA_value of the header, which
+     * must not occur as a valid value of the grid.
+     */
+    void write(String fileName, int[] values, int noData) throws IOException {
+        FileChannel channel = FileChannel.open(new File(fileName).toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            position = 0;
+            for (String line : HEADER) {
+                for (int i = 0; i < line.length(); i++)
+                    bytes[position++] = (byte) line.charAt(i);
+                newLine();
+            }
+            for (byte b : "NODATA_value ".getBytes())
+                bytes[position++] = b;
+            writeInt(noData);
+            newLine();
+            for (int y = 0; y < Grid.SIZE; y++) {
+                if (position > BUFFER_SIZE - Grid.SIZE * MAX_VALUE_LENGTH - lineSeparator.length)
+                    flush(channel);
+                int offset = y * Grid.SIZE;
+                for (int x = 0; x < Grid.SIZE; x++) {
+                    if (x > 0)
+                        bytes[position++] = ' ';
+                    writeInt(values[offset + x]);
+                }
+                newLine();
+            }
+            flush(channel);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void newLine() {
+        for (byte b : lineSeparator)
+            bytes[position++] = b;
+    }
+
+    private void writeInt(int value) {
+        long v = value;
+        if (v < 0) {
+            bytes[position++] = '-';
+            v = -v;
+        }
+        int end = position + 1;
+        for (long rest = v / 10; rest != 0; rest /= 10)
+            end++;
+        int i = end;
+        do {
+            bytes[--i] = (byte) ('0' + v % 10);
+            v /= 10;
+        } while (v != 0);
+        position = end;
+    }
+
+    private void flush(FileChannel channel) throws IOException {
+        buffer.clear();
+        buffer.limit(position);
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        position = 0;
+    }
+}
@@ -0,0 +1,118 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.TimeZone;
+
+/**
+ * End-to-end benchmark of ImportWeatherData and BinaryFileImporter over a
+ * corpus written by SyntheticCorpusGenerator. Reports wall time, rows/s,
+ * MB/s of the (compressed) input and the peak resident set size of the JVM
+ * so far, which is why the station import runs first. Rows are the rows
+ * written by the station import and grid cells for radar.
+ *
+ * Options are given as name=value: dir (corpus directory), threads (for the
+ * radar import) and runs (number of repetitions).
+ */
+public class ImportBenchmark {
+
+    static long directorySize(File dir) {
+        long size = 0;
+        File[] files = dir.listFiles();
+        if (files != null)
+            for (File file : files)
+                size += file.isDirectory() ? directorySize(file) : file.length();
+        return size;
+    }
+
+    /**
+     * Returns the peak resident set size in bytes from /proc or, where that
+     * is not available, the sum of the peak usage of all JVM memory pools.
+     */
+    static long peakMemory() {
+        File status = new File("/proc/self/status");
+        if (status.exists()) {
+            try {
+                BufferedReader reader = new BufferedReader(new FileReader(status));
+                try {
+                    String line;
+                    while ((line = reader.readLine()) != null)
+                        if (line.startsWith("VmHWM:"))
+                            return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                } finally {
+                    reader.close();
+                }
+            } catch (IOException e) {
+                // Fall back to the memory pools
+            }
+        }
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            peak += pool.getPeakUsage().getUsed();
+        return peak;
+    }
+
+    static void report(String phase, long nanos, long rows, long bytes) {
+        double seconds = nanos / 1e9;
+        System.out.println(String.format(Locale.ROOT,
+            "%-10s %8.2f s %12d rows %12.0f rows/s %8.1f MB %8.1f MB/s peak RSS %6.0f MB",
+            phase, seconds, rows, rows / seconds, bytes / 1e6, bytes / 1e6 / seconds,
+            peakMemory() / 1e6));
+    }
+
+    public static void main(String[] args) throws Exception {
+        String dir = "corpus";
+        int threads = Runtime.getRuntime().availableProcessors();
+        int runs = 1;
+        for (String arg : args) {
+            String[] parts = arg.split("=", 2);
+            String name = parts[0].replaceFirst("^--", "");
+            String value = parts.length > 1 ? parts[1] : "";
+            switch (name) {
+            case "dir": dir = value; break;
+            case "threads": threads = Integer.parseInt(value); break;
+            case "runs": runs = Integer.parseInt(value); break;
+            default: throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(
+            new File(dir, SyntheticCorpusGenerator.PROPERTIES_FILE));
+        properties.load(in);
+        in.close();
+        DateFormat dateFormat = new SimpleDateFormat(
+            SyntheticCorpusGenerator.MEASUREMENT_TIME_FORMAT);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        Date from = dateFormat.parse(properties.getProperty("from"));
+        Date to = dateFormat.parse(properties.getProperty("to"));
+
+        String outputDir = dir + "/output";
+        new File(outputDir).mkdirs();
+        long stationBytes = directorySize(new File(dir + "/dwd"));
+        long radarBytes = directorySize(new File(dir + "/radolan"));
+
+        for (int run = 1; run <= runs; run++) {
+            System.out.println("Run " + run + "/" + runs);
+
+            long start = System.nanoTime();
+            long rows = ImportWeatherData.importAll(dir + "/dwd", outputDir, from, to);
+            report("stations", System.nanoTime() - start, rows, stationBytes);
+
+            start = System.nanoTime();
+            int files = BinaryFileImporter.importDirectory(dir + "/radolan",
+                outputDir + "/radolan", threads);
+            report("radar", System.nanoTime() - start,
+                (long) files * Grid.SIZE * Grid.SIZE, radarBytes);
+        }
+    }
+}
@@ -18,12 +18,14 @@ import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
 import java.util.TreeMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
@@ -88,6 +90,7 @@ public class ImportWeatherData {
     static final String CSV_DATE_FORMAT = "yyyy-MM-dd";
     static final String CSV_DATE_TIME_FORMAT = "yyyy-MM-dd HH:mm";
     static final int MISSING_VALUE = -999;
+    static final String STATION_MANIFEST = "station_manifest.csv";
 
     static final String REGEX_HISTORICAL = 
         "stundenwerte_\\w{2}_(\\d{5})_(\\d{8})_(\\d{8})_hist.zip";    
@@ -218,50 +221,51 @@ public class ImportWeatherData {
         return airTemperatures;
     }
 
-    static void writePressures(List<Pressure> pressures, String filename) throws IOException {
-        File file = new File(filename);
-        boolean firstLine = !file.exists();
-        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
-                new FileOutputStream(file, true), "UTF-8"));
-        if (firstLine) {
-            writer.write(Pressure.CSV_HEADER);
-            writer.newLine();
-        }
-        DateFormat dateFormat = new SimpleDateFormat(CSV_DATE_TIME_FORMAT);
-        
+    static void writePressures(List<Pressure> pressures, CsvWriter writer) throws IOException {
         for (Pressure pressure : pressures) {
-            writer.write(pressure.stationId + ";" +
-                    dateFormat.format(pressure.measurementTime) + ";" +
-                    //pressure.quality + ";" +
-                    pressure.pressureNN + ";" +
-                    pressure.pressureStationHeight);
+            writer.writeInt(pressure.stationId);
+            writer.writeSeparator();
+            writer.writeDateTime(pressure.measurementTime);
+            writer.writeSeparator();
+            //writer.writeInt(pressure.quality);
+            //writer.writeSeparator();
+            writer.writeDecimal(pressure.pressureNN);
+            writer.writeSeparator();
+            writer.writeDecimal(pressure.pressureStationHeight);
             writer.newLine();
         }
-        writer.close();
     }
 
-    static void writeAirTemperatures(List<AirTemperature> airTemperatures, String fileName)
-        throws IOException {
+    static void aggregatePressures(List<Pressure> pressures,
+        MeasurementAggregator aggregator) throws IOException {
 
-        File file = new File(fileName);
-        boolean firstLine = !file.exists();
-        BufferedWriter writer = new BufferedWriter(
-            new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
-        if (firstLine) {
-            writer.write(AirTemperature.CSV_HEADER);
-            writer.newLine();
-        }
-        DateFormat dateFormat = new SimpleDateFormat(CSV_DATE_TIME_FORMAT);
+        for (Pressure pressure : pressures)
+            aggregator.add(pressure.stationId, pressure.measurementTime, pressure.pressureNN);
+    }
+
+    static void writeAirTemperatures(List<AirTemperature> airTemperatures, CsvWriter writer)
+        throws IOException {
 
         for (AirTemperature airTemperature : airTemperatures) {
-            writer.write(airTemperature.stationId
-                + ";" + dateFormat.format(airTemperature.measurementTime)
-                //+ ";" + airTemperature.quality 
-                + ";" + airTemperature.airTemperature
-                + ";" + airTemperature.relativeHumidity);
+            writer.writeInt(airTemperature.stationId);
+            writer.writeSeparator();
+            writer.writeDateTime(airTemperature.measurementTime);
+            writer.writeSeparator();
+            //writer.writeInt(airTemperature.quality);
+            //writer.writeSeparator();
+            writer.writeDecimal(airTemperature.airTemperature);
+            writer.writeSeparator();
+            writer.writeInt(airTemperature.relativeHumidity);
             writer.newLine();
         }
-        writer.close();
+    }
+
+    static void aggregateAirTemperatures(List<AirTemperature> airTemperatures,
+        MeasurementAggregator aggregator) throws IOException {
+
+        for (AirTemperature airTemperature : airTemperatures)
+            aggregator.add(airTemperature.stationId, airTemperature.measurementTime,
+                airTemperature.airTemperature);
     }
 
     static List<Wind> readWinds(File file, Date from, Date to,
@@ -302,26 +306,26 @@ public class ImportWeatherData {
         return winds;
     }
 
-    static void writeWinds(List<Wind> winds, String fileName) throws IOException {
-        File file = new File(fileName);
-        boolean firstLine = !file.exists();
-        BufferedWriter writer = new BufferedWriter(
-            new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
-        if (firstLine) {
-            writer.write(Wind.CSV_HEADER);
-            writer.newLine();
-        }
-
-        DateFormat dateFormat = new SimpleDateFormat(CSV_DATE_TIME_FORMAT);
+    static void writeWinds(List<Wind> winds, CsvWriter writer) throws IOException {
         for (Wind w : winds) {
-            writer.write(w.stationId
-                + ";" + dateFormat.format(w.measurementTime) 
-                //+ ";" + w.quality
-                + ";" + w.meanWindSpeed
-                + ";" + w.meanWindDirection);
+            writer.writeInt(w.stationId);
+            writer.writeSeparator();
+            writer.writeDateTime(w.measurementTime);
+            writer.writeSeparator();
+            //writer.writeInt(w.quality);
+            //writer.writeSeparator();
+            writer.writeDecimal(w.meanWindSpeed);
+            writer.writeSeparator();
+            writer.writeInt(w.meanWindDirection);
             writer.newLine();
         }
-        writer.close();
+    }
+
+    static void aggregateWinds(List<Wind> winds, MeasurementAggregator aggregator)
+        throws IOException {
+
+        for (Wind w : winds)
+            aggregator.add(w.stationId, w.measurementTime, w.meanWindSpeed);
     }
 
     static List<Precipitation> readPrecipitations(File file, Date from, Date to,
@@ -351,7 +355,7 @@ public class ImportWeatherData {
             precipitation.height = Double.parseDouble(parts[3].trim());
             precipitation.hasFallen = parts[4].trim().equals("1");
             precipitation.form = Integer.parseInt(parts[5].trim());
-            if (precipitation.height == MISSING_VALUE || !precipitation.hasFallen)
+            if (precipitation.height == MISSING_VALUE)
                 continue;
             if (precipitation.form == MISSING_VALUE)
                 precipitation.form = -1;
@@ -363,29 +367,35 @@ public class ImportWeatherData {
         return precipitations;
     }
     
-    static void writePrecipitations(List<Precipitation> precipitations, String fileName)
+    static void writePrecipitations(List<Precipitation> precipitations, CsvWriter writer)
         throws IOException {
 
-        File file = new File(fileName);
-        boolean firstLine = !file.exists();
-        BufferedWriter writer = new BufferedWriter(
-            new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
-        if (firstLine) {
-            writer.write(Precipitation.CSV_HEADER);
-            writer.newLine();
-        }
-
-        DateFormat dateFormat = new SimpleDateFormat(CSV_DATE_TIME_FORMAT);
         for (Precipitation precipitation : precipitations) {
-            writer.write(precipitation.stationId
-                + ";" + dateFormat.format(precipitation.measurementTime) 
-                //+ ";" + precipitation.quality
-                + ";" + precipitation.height
-                //+ ";" + precipitation.hasFallen
-                + ";" + precipitation.form);
+            if (!precipitation.hasFallen)
+                continue;
+            writer.writeInt(precipitation.stationId);
+            writer.writeSeparator();
+            writer.writeDateTime(precipitation.measurementTime);
+            writer.writeSeparator();
+            //writer.writeInt(precipitation.quality);
+            //writer.writeSeparator();
+            writer.writeDecimal(precipitation.height);
+            writer.writeSeparator();
+            //writer.writeString(String.valueOf(precipitation.hasFallen));
+            //writer.writeSeparator();
+            writer.writeInt(precipitation.form);
             writer.newLine();
         }
-        writer.close();
+    }
+
+    // Dry hours are aggregated as well, so that the hour count of the
+    // aggregates is the number of valid hours and dry days have a sum of 0
+    static void aggregatePrecipitations(List<Precipitation> precipitations,
+        MeasurementAggregator aggregator) throws IOException {
+
+        for (Precipitation precipitation : precipitations)
+            aggregator.add(precipitation.stationId, precipitation.measurementTime,
+                precipitation.height);
     }
 
     private static BufferedReader readFromZip(ZipFile zipFile, Date from, Date to)
@@ -444,35 +454,82 @@ public class ImportWeatherData {
 
     static class MeasurementImporter<M extends Measurement> implements Runnable {
 
-        final String baseDir, outFileName;
+        final String baseDir, outFileName, csvHeader;
         final Map<Integer, Station> stations;
-        final Method readMethod, writeMethod;
+        final Method readMethod, writeMethod, aggregateMethod;
         final Date from, to;
 
-        MeasurementImporter(String baseDir, String outFileName, Map<Integer, Station> stations,
-            Date from, Date to, String readMethod, String writeMethod)
-            throws NoSuchMethodException {
+        // Opened on the first write and kept open for all input files
+        CsvWriter writer;
+
+        // Optional daily and monthly aggregates, null if not wanted
+        final MeasurementAggregator aggregator;
+
+        // Number of rows written so far
+        long rows;
+
+        // Stations to import if sharded, null for all
+        final Shard shard;
+
+        // Input files processed, relative to the parent of baseDir, with
+        // the number of rows written for each of them
+        final Map<String, Long> inputs = new LinkedHashMap<String, Long>();
+
+        MeasurementImporter(String baseDir, String outFileName, String csvHeader,
+            Map<Integer, Station> stations, Date from, Date to, String readMethod,
+            String writeMethod, MeasurementAggregator aggregator, String aggregateMethod,
+            Shard shard) throws NoSuchMethodException {
 
             this.baseDir = baseDir;
             this.outFileName = outFileName;
+            this.csvHeader = csvHeader;
             this.stations = stations;
             this.readMethod = ImportWeatherData.class.getDeclaredMethod(readMethod,
                 File.class, Date.class, Date.class, Map.class);
             this.writeMethod = ImportWeatherData.class.getDeclaredMethod(writeMethod,
-                List.class, String.class);
+                List.class, CsvWriter.class);
+            this.aggregator = aggregator;
+            this.aggregateMethod = aggregator == null ? null
+                : ImportWeatherData.class.getDeclaredMethod(aggregateMethod,
+                    List.class, MeasurementAggregator.class);
             this.from = from;
             this.to = to;
+            this.shard = shard;
+        }
+
+        boolean isInShard(String fileName) {
+            return shard == null
+                || shard.containsStation(extractStationIdFromFilename(fileName));
+        }
+
+        // Returns the number of rows written, which is less than the number
+        // of measurements if the write method skips some of them
+        long write(List<M> measurements) throws Exception {
+            if (writer == null)
+                writer = new CsvWriter(outFileName, csvHeader);
+            long lines = writer.lines;
+            writeMethod.invoke(ImportWeatherData.class, measurements, writer);
+            rows += writer.lines - lines;
+            if (aggregator != null)
+                aggregateMethod.invoke(ImportWeatherData.class, measurements, aggregator);
+            return writer.lines - lines;
+        }
+
+        void addInput(String subDir, File file, long written) {
+            inputs.put(new File(baseDir).getName() + "/" + subDir + "/" + file.getName(),
+                written);
         }
 
         @Override
         public void run() {
             try {
-                // Read in all historical data that fall into the time span in focus
+                // Read in all historical data that fall into the time span in focus,
+                // only the files of the shard are listed
                 Map<Integer, Date> mostRecentHistoricalData = new HashMap<Integer, Date>();
                 FilenameFilter zipFileFilter = new FilenameFilter() {
                     @Override
                     public boolean accept(File dir, String name) {
-                        return name.endsWith(".zip");
+                        return name.endsWith(".zip") && isInShard(name);
                     }
                 };
                 File[] files = new File(baseDir + "/historical").listFiles(zipFileFilter);
@@ -482,15 +539,18 @@ public class ImportWeatherData {
                         System.out.println(++count + "/" + files.length);
                         List<M> measurements = (List<M>)
                             readMethod.invoke(ImportWeatherData.class, file, from, to, stations);
+                        long written = 0;
                         if (measurements != null && measurements.size() > 0) {
-                            writeMethod.invoke(ImportWeatherData.class, measurements, outFileName);
+                            written = write(measurements);
                             M mostRecentEntry = locateMostRecentEntry(measurements);
                             mostRecentHistoricalData.put(mostRecentEntry.stationId, mostRecentEntry.measurementTime);
                         }
+                        addInput("historical", file, written);
                     }
                 }
 
-                // Read in more recent data starting from the end date of the historical data
+                // Read in more recent data starting from the end date of the historical data,
+                // i.e. the last valid hour read, which includes dry hours for precipitation
                 files = new File(baseDir + "/recent").listFiles(zipFileFilter);
                 count = 0;
                 if (files != null) {
@@ -504,45 +564,66 @@ public class ImportWeatherData {
                             : lastDate.after(from) ? lastDate : from;
                         List<M> measurements = (List<M>) readMethod.invoke(ImportWeatherData.class,
                             file, fromDate, to, stations);
+                        long written = 0;
                         if (measurements != null && measurements.size() > 0)
-                            writeMethod.invoke(ImportWeatherData.class, measurements, outFileName);
+                            written = write(measurements);
+                        addInput("recent", file, written);
                     }
                 }
             } catch (Exception e) {
                 e.printStackTrace(System.err);
+            } finally {
+                try {
+                    if (writer != null)
+                        writer.close();
+                    if (aggregator != null)
+                        aggregator.close();
+                } catch (IOException e) {
+                    e.printStackTrace(System.err);
+                }
             }
         }
     }
 
-    public static void main(String[] args) throws NoSuchMethodException,
-        IOException, ParseException {
+    static long importAll(String dir, String outputDir, Date from, Date to)
+        throws NoSuchMethodException, IOException, ParseException, InterruptedException {
 
-        Calendar cal = Calendar.getInstance();
-        cal.set(2012, 0, 1, 0, 0);
-        Date from =  cal.getTime();
-        cal.set(2019, 0, 1, 0, 0);
-        Date to = cal.getTime();
+        return importAll(dir, outputDir, from, to, null);
+    }
+
+    /**
+     * Imports all measurements below dir that fall into the given time span
+     * into CSV files in outputDir and returns the number of rows written.
+     * With a shard only its stations are imported and a manifest of the
+     * processed input files is written to outputDir as well.
+     */
+    static long importAll(String dir, String outputDir, Date from, Date to, Shard shard)
+        throws NoSuchMethodException, IOException, ParseException, InterruptedException {
 
         // Input files
-        String dir = "dwd";
         String airTemperatureDir = dir + "/air_temperature";
         String precipitationDir = dir + "/precipitation";
         String pressureDir = dir + "/pressure";
         String windDir = dir + "/wind";
 
-        // Output files
-        String stationFile = "weatherstation.csv";
-        String airTemperatureFile = "air_temperature.csv";
-        String windFile = "wind.csv";
-        String precipitationFile = "precipitation.csv";
-        String pressureFile = "pressure.csv";    
+        // Output files, the daily and monthly aggregates are written to
+        // <name>_daily.csv and <name>_monthly.csv
+        String stationFile = outputDir + "/weatherstation.csv";
+        String airTemperatureFile = outputDir + "/air_temperature";
+        String windFile = outputDir + "/wind";
+        String precipitationFile = outputDir + "/precipitation";
+        String pressureFile = outputDir + "/pressure";
+        String[] measurementFiles = {
+            airTemperatureFile, windFile, precipitationFile, pressureFile
+        };
 
         // Remove existing output files
         new File(stationFile).delete();
-        new File(airTemperatureFile).delete();
-        new File(windFile).delete();
-        new File(precipitationFile).delete();
-        new File(pressureFile).delete();
+        for (String file : measurementFiles) {
+            new File(file + ".csv").delete();
+            new File(file + "_daily.csv").delete();
+            new File(file + "_monthly.csv").delete();
+        }
 
         // Read in all stations
         Map<Integer, Station> stations = new TreeMap<Integer, Station>();
@@ -556,18 +637,65 @@ public class ImportWeatherData {
             + "RR_Stundenwerte_Beschreibung_Stationen.txt");
         writeStations(stations, stationFile);
 
-        ExecutorService executorService = Executors.newFixedThreadPool(4);
-        executorService.execute(new MeasurementImporter<AirTemperature>(
-            airTemperatureDir, airTemperatureFile, stations, from, to,
-            "readAirTemperatures", "writeAirTemperatures"));
-        executorService.execute(new MeasurementImporter<Wind>(
-            windDir, windFile, stations, from, to,
-            "readWinds", "writeWinds"));
-        executorService.execute(new MeasurementImporter<Precipitation>(
-            precipitationDir, precipitationFile, stations, from, to,
-            "readPrecipitations", "writePrecipitations"));
-        executorService.execute(new MeasurementImporter<Pressure>(
-            pressureDir, pressureFile, stations, from, to,
-            "readPressures", "writePressures"));
+        List<MeasurementImporter<?>> importers = new ArrayList<MeasurementImporter<?>>();
+        importers.add(new MeasurementImporter<AirTemperature>(
+            airTemperatureDir, airTemperatureFile + ".csv", AirTemperature.CSV_HEADER,
+            stations, from, to,
+            "readAirTemperatures", "writeAirTemperatures",
+            new MeasurementAggregator(airTemperatureFile, "airTemperature",
+                MeasurementAggregator.MIN | MeasurementAggregator.MAX
+                | MeasurementAggregator.MEAN),
+            "aggregateAirTemperatures", shard));
+        importers.add(new MeasurementImporter<Wind>(
+            windDir, windFile + ".csv", Wind.CSV_HEADER, stations, from, to,
+            "readWinds", "writeWinds",
+            new MeasurementAggregator(windFile, "windSpeed", MeasurementAggregator.MEAN),
+            "aggregateWinds", shard));
+        importers.add(new MeasurementImporter<Precipitation>(
+            precipitationDir, precipitationFile + ".csv", Precipitation.CSV_HEADER,
+            stations, from, to,
+            "readPrecipitations", "writePrecipitations",
+            new MeasurementAggregator(precipitationFile, "height", MeasurementAggregator.SUM),
+            "aggregatePrecipitations", shard));
+        importers.add(new MeasurementImporter<Pressure>(
+            pressureDir, pressureFile + ".csv", Pressure.CSV_HEADER, stations, from, to,
+            "readPressures", "writePressures",
+            new MeasurementAggregator(pressureFile, "pressureNN", MeasurementAggregator.MEAN),
+            "aggregatePressures", shard));
+
+        ExecutorService executorService = Executors.newFixedThreadPool(importers.size());
+        for (MeasurementImporter<?> importer : importers)
+            executorService.execute(importer);
+        executorService.shutdown();
+        executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+
+        long rows = 0;
+        Map<String, Long> inputs = new LinkedHashMap<String, Long>();
+        for (MeasurementImporter<?> importer : importers) {
+            rows += importer.rows;
+            inputs.putAll(importer.inputs);
+        }
+        if (shard != null)
+            shard.writeManifest(outputDir + "/" + STATION_MANIFEST, inputs);
+        return rows;
+    }
+
+    public static void main(String[] args) throws NoSuchMethodException,
+        IOException, ParseException, InterruptedException {
+
+        Calendar cal = Calendar.getInstance();
+        cal.set(2012, 0, 1, 0, 0);
+        Date from =  cal.getTime();
+        cal.set(2019, 0, 1, 0, 0);
+        Date to = cal.getTime();
+
+        // Optional --shard i/n, each shard writes to its own directory
+        Shard shard = Shard.fromArgs(args);
+        String outputDir = ".";
+        if (shard != null) {
+            outputDir = shard.directoryName();
+            new File(outputDir).mkdirs();
+        }
+        importAll("dwd", outputDir, from, to, shard);
     }
 }
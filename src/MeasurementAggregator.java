@@ -0,0 +1,173 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Computes daily and monthly aggregates per station while the hourly values
+ * are streamed through it. Values of each station have to arrive in
+ * chronological order; the accumulators of a station are written out as soon
+ * as one of its values belongs to a new day or month. Days and months are
+ * taken in the default time zone, i.e. they match the timestamps of the
+ * hourly CSV files.
+ */
+public class MeasurementAggregator implements Closeable {
+
+    static final int MIN = 1, MAX = 2, MEAN = 4, SUM = 8;
+
+    // Decimal places of means and sums
+    static final int SCALE = 2;
+
+    static class Accumulator {
+        int count;
+        double sum;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+
+        void add(double value) {
+            count++;
+            sum += value;
+            if (value < min)
+                min = value;
+            if (value > max)
+                max = value;
+        }
+
+        void reset() {
+            count = 0;
+            sum = 0;
+            min = Double.POSITIVE_INFINITY;
+            max = Double.NEGATIVE_INFINITY;
+        }
+    }
+
+    static class StationState {
+        long day = Long.MIN_VALUE;
+        int yearMonthDay;
+        int month;
+        final Accumulator daily = new Accumulator();
+        final Accumulator monthly = new Accumulator();
+    }
+
+    final String dailyFileName, monthlyFileName, dailyHeader, monthlyHeader;
+    final int statistics;
+    final Map<Integer, StationState> states = new HashMap<Integer, StationState>();
+    final TimeZone timeZone = TimeZone.getDefault();
+
+    // Opened on the first aggregate written
+    CsvWriter dailyWriter, monthlyWriter;
+
+    /**
+     * @param baseFileName name of the hourly output file without .csv, the
+     *     aggregates go to baseFileName_daily.csv and baseFileName_monthly.csv
+     * @param valueName column name the statistics are prefixed to, e.g.
+     *     airTemperature becomes minAirTemperature
+     * @param statistics combination of MIN, MAX, MEAN and SUM
+     */
+    MeasurementAggregator(String baseFileName, String valueName, int statistics) {
+        this.dailyFileName = baseFileName + "_daily.csv";
+        this.monthlyFileName = baseFileName + "_monthly.csv";
+        this.statistics = statistics;
+        String columns = "";
+        String name = Character.toUpperCase(valueName.charAt(0)) + valueName.substring(1);
+        if ((statistics & MIN) != 0)
+            columns += ";min" + name;
+        if ((statistics & MAX) != 0)
+            columns += ";max" + name;
+        if ((statistics & MEAN) != 0)
+            columns += ";mean" + name;
+        if ((statistics & SUM) != 0)
+            columns += ";sum" + name;
+        this.dailyHeader = "stationId;measurementDate" + columns + ";hours";
+        this.monthlyHeader = "stationId;measurementMonth" + columns + ";hours";
+    }
+
+    void add(int stationId, Date measurementTime, double value) throws IOException {
+        StationState state = states.get(stationId);
+        if (state == null) {
+            state = new StationState();
+            states.put(stationId, state);
+        }
+
+        long time = measurementTime.getTime() + timeZone.getOffset(measurementTime.getTime());
+        long day = time >= 0 ? time / CsvWriter.MILLIS_PER_DAY
+            : (time + 1) / CsvWriter.MILLIS_PER_DAY - 1;
+        if (day != state.day) {
+            writeDaily(stationId, state);
+            state.day = day;
+            state.yearMonthDay = CsvWriter.toYearMonthDay(day);
+            int month = state.yearMonthDay / 100;
+            if (month != state.month) {
+                writeMonthly(stationId, state);
+                state.month = month;
+            }
+        }
+        state.daily.add(value);
+        state.monthly.add(value);
+    }
+
+    /**
+     * Writes out the aggregates of all days and months still open.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            for (Map.Entry<Integer, StationState> entry : states.entrySet()) {
+                writeDaily(entry.getKey(), entry.getValue());
+                writeMonthly(entry.getKey(), entry.getValue());
+            }
+            states.clear();
+        } finally {
+            if (dailyWriter != null)
+                dailyWriter.close();
+            if (monthlyWriter != null)
+                monthlyWriter.close();
+        }
+    }
+
+    private void writeDaily(int stationId, StationState state) throws IOException {
+        if (state.daily.count == 0)
+            return;
+        if (dailyWriter == null)
+            dailyWriter = new CsvWriter(dailyFileName, dailyHeader);
+        write(dailyWriter, stationId, state.yearMonthDay, state.daily);
+    }
+
+    private void writeMonthly(int stationId, StationState state) throws IOException {
+        if (state.monthly.count == 0)
+            return;
+        if (monthlyWriter == null)
+            monthlyWriter = new CsvWriter(monthlyFileName, monthlyHeader);
+        write(monthlyWriter, stationId, state.month * 100 + 1, state.monthly);
+    }
+
+    private void write(CsvWriter writer, int stationId, int yearMonthDay,
+        Accumulator accumulator) throws IOException {
+
+        writer.writeInt(stationId);
+        writer.writeSeparator();
+        writer.writeDate(yearMonthDay);
+        if ((statistics & MIN) != 0) {
+            writer.writeSeparator();
+            writer.writeDecimal(accumulator.min);
+        }
+        if ((statistics & MAX) != 0) {
+            writer.writeSeparator();
+            writer.writeDecimal(accumulator.max);
+        }
+        if ((statistics & MEAN) != 0) {
+            writer.writeSeparator();
+            writer.writeDecimal(accumulator.sum / accumulator.count, SCALE);
+        }
+        if ((statistics & SUM) != 0) {
+            writer.writeSeparator();
+            writer.writeDecimal(accumulator.sum, SCALE);
+        }
+        writer.writeSeparator();
+        writer.writeInt(accumulator.count);
+        writer.newLine();
+        accumulator.reset();
+    }
+}
@@ -0,0 +1,105 @@
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.Map;
+
+/**
+ * Deterministic assignment of stations and radar hours to one of n shards,
+ * given on the command line as --shard i/n with 0 &lt;= i &lt; n. Every shard
+ * writes its output to its own directory together with a manifest listing
+ * the input files it processed; ShardMerger checks the manifests and merges
+ * the outputs.
+ */
+public class Shard {
+
+    static final String MANIFEST_HEADER = "shard;input;rows";
+
+    final int index;
+    final int count;
+
+    Shard(int index, int count) {
+        if (count < 1 || index < 0 || index >= count)
+            throw new IllegalArgumentException("Invalid shard " + index + "/" + count);
+        this.index = index;
+        this.count = count;
+    }
+
+    static Shard parse(String shard) {
+        int slash = shard.indexOf('/');
+        if (slash < 0)
+            throw new IllegalArgumentException("Shard must be given as i/n: " + shard);
+        return new Shard(Integer.parseInt(shard.substring(0, slash).trim()),
+            Integer.parseInt(shard.substring(slash + 1).trim()));
+    }
+
+    /**
+     * Returns the shard given as --shard i/n or --shard=i/n, null if there is
+     * none.
+     */
+    static Shard fromArgs(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--shard") && i + 1 < args.length)
+                return parse(args[i + 1]);
+            if (args[i].startsWith("--shard="))
+                return parse(args[i].substring("--shard=".length()));
+        }
+        return null;
+    }
+
+    /**
+     * All measurements of a station, historical and recent, end up in the
+     * same shard, so that the daily and monthly aggregates stay complete.
+     */
+    boolean containsStation(int stationId) {
+        return bucket(stationId) == index;
+    }
+
+    /**
+     * Takes the hour as yyMMddHH number from the file name, which does not
+     * depend on the time zone of the process.
+     */
+    boolean containsHour(long hour) {
+        return bucket(hour) == index;
+    }
+
+    // Final mixing step of MurmurHash3 to spread consecutive keys evenly
+    int bucket(long key) {
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) ((h >>> 1) % count);
+    }
+
+    String directoryName() {
+        return directoryName(index, count);
+    }
+
+    static String directoryName(int index, int count) {
+        return "shard-" + index + "-of-" + count;
+    }
+
+    @Override
+    public String toString() {
+        return index + "/" + count;
+    }
+
+    /**
+     * Writes the processed input files with the number of rows written for
+     * each of them.
+     */
+    void writeManifest(String fileName, Map<String, Long> inputs) throws IOException {
+        BufferedWriter writer = new BufferedWriter(
+            new OutputStreamWriter(new FileOutputStream(fileName), "UTF-8"));
+        writer.write(MANIFEST_HEADER);
+        writer.newLine();
+        for (Map.Entry<String, Long> input : inputs.entrySet()) {
+            writer.write(this + ";" + input.getKey() + ";" + input.getValue());
+            writer.newLine();
+        }
+        writer.close();
+    }
+}
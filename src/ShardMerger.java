@@ -0,0 +1,269 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Merges the outputs of a sharded import. First the manifests of all shards
+ * are checked to cover every input file below dwd and radolan exactly once
+ * (of the radar files those of BinaryFileImporter.listRadarFiles),
+ * then the CSV files are concatenated with a single header and the radar
+ * grids are copied into radolan_ascii. Finally the number of rows
+ * merged per category is compared with the numbers in the manifests.
+ *
+ * Options are given as name=value: shards (number of shards, required) and
+ * dir (directory with the input and the shard directories, default ".").
+ */
+public class ShardMerger {
+
+    static final String[] CATEGORIES = {
+        "air_temperature", "precipitation", "pressure", "wind"
+    };
+
+    static final String STATION_FILE = "weatherstation.csv";
+
+    static final int BUFFER_SIZE = 1 << 20;
+
+    final String dir;
+    final int count;
+    final File[] shardDirs;
+
+    // Shard of every input file and expected rows per category and shard
+    final Map<String, Integer> owners = new HashMap<String, Integer>();
+    final Map<String, long[]> rows = new HashMap<String, long[]>();
+
+    ShardMerger(String dir, int count) {
+        this.dir = dir;
+        this.count = count;
+        this.shardDirs = new File[count];
+        for (int i = 0; i < count; i++)
+            shardDirs[i] = new File(dir, Shard.directoryName(i, count));
+    }
+
+    void merge() throws IOException {
+        boolean stations = readManifests(ImportWeatherData.STATION_MANIFEST);
+        boolean radar = readManifests(BinaryFileImporter.RADAR_MANIFEST);
+        if (!stations && !radar)
+            throw new IOException("No manifests found for " + count + " shards in " + dir);
+        checkCoverage(stations, radar);
+
+        if (stations) {
+            mergeStations();
+            for (String category : CATEGORIES) {
+                long merged = mergeCsv(category + ".csv");
+                mergeCsv(category + "_daily.csv");
+                mergeCsv(category + "_monthly.csv");
+                checkRows(category, merged);
+            }
+        }
+        if (radar)
+            checkRows("radolan", mergeGrids() * Grid.SIZE * Grid.SIZE);
+    }
+
+    /**
+     * Reads the given manifest of every shard, returns false if there are
+     * none at all.
+     */
+    boolean readManifests(String manifest) throws IOException {
+        int found = 0;
+        for (int i = 0; i < count; i++) {
+            File file = new File(shardDirs[i], manifest);
+            if (!file.exists())
+                continue;
+            found++;
+            String expectedShard = i + "/" + count;
+            BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            String line = reader.readLine();
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(";");
+                if (!parts[0].equals(expectedShard))
+                    throw new IOException(file + " belongs to shard " + parts[0]);
+                Integer owner = owners.put(parts[1], i);
+                if (owner != null)
+                    throw new IOException(parts[1] + " imported by shards " + owner + " and " + i);
+                String category = parts[1].substring(0, parts[1].indexOf('/'));
+                long[] categoryRows = rows.get(category);
+                if (categoryRows == null) {
+                    categoryRows = new long[count];
+                    rows.put(category, categoryRows);
+                }
+                categoryRows[i] += Long.parseLong(parts[2]);
+            }
+            reader.close();
+        }
+        if (found > 0 && found < count)
+            throw new IOException(manifest + " missing for " + (count - found) + " shards");
+        return found > 0;
+    }
+
+    void checkCoverage(boolean stations, boolean radar) throws IOException {
+        List<String> inputs = new ArrayList<String>();
+        if (stations) {
+            for (String category : CATEGORIES) {
+                for (String subDir : new String[] { "historical", "recent" }) {
+                    File[] files = new File(dir + "/dwd/" + category + "/" + subDir).listFiles();
+                    if (files != null)
+                        for (File file : files)
+                            if (file.getName().endsWith(".zip"))
+                                inputs.add(category + "/" + subDir + "/" + file.getName());
+                }
+            }
+        }
+        if (radar)
+            for (File file : BinaryFileImporter.listRadarFiles(dir + "/radolan", null))
+                inputs.add("radolan/" + file.getName());
+
+        TreeSet<String> missing = new TreeSet<String>(inputs);
+        missing.removeAll(owners.keySet());
+        TreeSet<String> unknown = new TreeSet<String>(owners.keySet());
+        unknown.removeAll(inputs);
+        if (!missing.isEmpty())
+            throw new IOException(missing.size() + " input files not imported by any shard, e.g. "
+                + missing.first());
+        if (!unknown.isEmpty())
+            throw new IOException(unknown.size() + " input files of the manifests do not exist, e.g. "
+                + unknown.first());
+    }
+
+    void checkRows(String category, long merged) throws IOException {
+        long expected = 0;
+        long[] categoryRows = rows.get(category);
+        if (categoryRows != null)
+            for (long r : categoryRows)
+                expected += r;
+        if (merged != expected)
+            throw new IOException(category + ": " + merged + " rows merged, manifests list "
+                + expected);
+    }
+
+    /**
+     * The stations are written by every shard, they have to be identical.
+     */
+    void mergeStations() throws IOException {
+        byte[] stations = Files.readAllBytes(new File(shardDirs[0], STATION_FILE).toPath());
+        for (int i = 1; i < count; i++)
+            if (!Arrays.equals(stations,
+                Files.readAllBytes(new File(shardDirs[i], STATION_FILE).toPath())))
+                throw new IOException(STATION_FILE + " differs between shards 0 and " + i);
+        Files.write(new File(dir, STATION_FILE).toPath(), stations);
+    }
+
+    /**
+     * Concatenates the file of all shards keeping the header of the first one
+     * and returns the number of rows without headers.
+     */
+    long mergeCsv(String fileName) throws IOException {
+        File output = new File(dir, fileName);
+        output.delete();
+        FileChannel out = null;
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long lines = 0;
+        try {
+            for (File shardDir : shardDirs) {
+                File input = new File(shardDir, fileName);
+                if (!input.exists())
+                    continue;
+                boolean header = out == null;
+                if (out == null)
+                    out = FileChannel.open(output.toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                lines += copy(input, out, buffer, !header) - 1;
+            }
+        } finally {
+            if (out != null)
+                out.close();
+        }
+        return lines;
+    }
+
+    /**
+     * Copies the file and returns the number of lines, optionally without
+     * writing the first one.
+     */
+    static long copy(File input, FileChannel out, ByteBuffer buffer, boolean skipFirstLine)
+        throws IOException {
+
+        FileChannel in = FileChannel.open(input.toPath(), StandardOpenOption.READ);
+        long lines = 0;
+        try {
+            buffer.clear();
+            while (in.read(buffer) != -1 || buffer.position() > 0) {
+                buffer.flip();
+                int start = buffer.position();
+                for (int i = start; i < buffer.limit(); i++) {
+                    if (buffer.get(i) == '\n') {
+                        if (lines == 0 && skipFirstLine)
+                            buffer.position(i + 1);
+                        lines++;
+                    }
+                }
+                while (buffer.hasRemaining())
+                    out.write(buffer);
+                buffer.clear();
+            }
+        } finally {
+            in.close();
+        }
+        return lines;
+    }
+
+    /**
+     * Copies the radar grids of all shards into the output directory and
+     * returns their number. The shard directories are left as they are, so
+     * that the merge can be repeated. A grid written by two shards means
+     * that they imported the same hour, which is an error.
+     */
+    long mergeGrids() throws IOException {
+        File outputDir = new File(dir, "radolan_ascii");
+        outputDir.mkdirs();
+        Set<String> names = new HashSet<String>();
+        long files = 0;
+        for (File shardDir : shardDirs) {
+            File[] grids = new File(shardDir, "radolan_ascii").listFiles();
+            if (grids == null)
+                continue;
+            for (File grid : grids) {
+                if (!names.add(grid.getName()))
+                    throw new IOException(grid.getName() + " written by more than one shard");
+                Files.copy(grid.toPath(), new File(outputDir, grid.getName()).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+                files++;
+            }
+        }
+        return files;
+    }
+
+    public static void main(String[] args) throws IOException {
+        String dir = ".";
+        int shards = 0;
+        for (String arg : args) {
+            String[] parts = arg.split("=", 2);
+            String name = parts[0].replaceFirst("^--", "");
+            String value = parts.length > 1 ? parts[1] : "";
+            switch (name) {
+            case "dir": dir = value; break;
+            case "shards": shards = Integer.parseInt(value); break;
+            default: throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        if (shards < 1)
+            throw new IllegalArgumentException("Number of shards missing, e.g. shards=4");
+        new ShardMerger(dir, shards).merge();
+        System.out.println("Merged " + shards + " shards into " + dir);
+    }
+}
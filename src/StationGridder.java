@@ -0,0 +1,476 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Interpolates station observations onto the RADOLAN grid by inverse
+ * distance weighting over the k nearest stations. The stations of an hour
+ * are put into a k-d tree, the grid rows are then distributed over a fixed
+ * number of worker threads that keep their search buffers between hours.
+ * Results are flat arrays in the order used by {@link GridWriter}.
+ */
+public class StationGridder {
+
+    static final int K = 8;
+
+    static final double POWER = 2;
+
+    // Rows handed to a worker at once
+    static final int ROWS_PER_TASK = 8;
+
+    // Missing cells in tenths, unlike GridWriter.NODATA no valid value of a
+    // station field since temperatures can be negative
+    static final int NODATA = -9999;
+
+    // Stations closer than this (in km) are taken as is
+    static final double MIN_DISTANCE = 1e-3;
+
+    // Equirectangular projection around the center of Germany, good enough
+    // to rank and weigh distances of up to a few hundred kilometers
+    static final double RADIUS = 6370.04;
+    static final double COS_LAT_0 = Math.cos(Math.toRadians(51));
+
+    static final double[] CELL_X, CELL_Y;
+
+    static {
+        CELL_X = new double[Grid.SIZE * Grid.SIZE];
+        CELL_Y = new double[Grid.SIZE * Grid.SIZE];
+        for (int y = 0; y < Grid.SIZE; y++) {
+            // Grid.LON/LAT start with the southernmost row
+            int row = Grid.SIZE - 1 - y;
+            for (int x = 0; x < Grid.SIZE; x++) {
+                CELL_X[y * Grid.SIZE + x] = projectX(Grid.LON[row][x]);
+                CELL_Y[y * Grid.SIZE + x] = projectY(Grid.LAT[row][x]);
+            }
+        }
+    }
+
+    static double projectX(double lon) {
+        return RADIUS * COS_LAT_0 * Math.toRadians(lon);
+    }
+
+    static double projectY(double lat) {
+        return RADIUS * Math.toRadians(lat);
+    }
+
+    /**
+     * Two dimensional k-d tree stored implicitly in arrays: the median of a
+     * range is its middle element, the lower half lies left of it.
+     */
+    static class KdTree {
+        double[] x = new double[0], y = new double[0], value = new double[0];
+        int size;
+
+        void build(double[] xs, double[] ys, double[] values, int count) {
+            if (x.length < count) {
+                x = new double[count];
+                y = new double[count];
+                value = new double[count];
+            }
+            System.arraycopy(xs, 0, x, 0, count);
+            System.arraycopy(ys, 0, y, 0, count);
+            System.arraycopy(values, 0, value, 0, count);
+            size = count;
+            build(0, count, 0);
+        }
+
+        private void build(int lo, int hi, int depth) {
+            if (hi - lo < 2)
+                return;
+            int mid = (lo + hi) >>> 1;
+            select(lo, hi - 1, mid, (depth & 1) == 0 ? x : y);
+            build(lo, mid, depth + 1);
+            build(mid + 1, hi, depth + 1);
+        }
+
+        // Quickselect, afterwards coords[lo..n) <= coords[n] <= coords(n..hi]
+        private void select(int lo, int hi, int n, double[] coords) {
+            while (hi > lo) {
+                double pivot = coords[(lo + hi) >>> 1];
+                int i = lo, j = hi;
+                while (i <= j) {
+                    while (coords[i] < pivot)
+                        i++;
+                    while (coords[j] > pivot)
+                        j--;
+                    if (i <= j)
+                        swap(i++, j--);
+                }
+                if (n <= j)
+                    hi = j;
+                else if (n >= i)
+                    lo = i;
+                else
+                    return;
+            }
+        }
+
+        private void swap(int i, int j) {
+            double t = x[i]; x[i] = x[j]; x[j] = t;
+            t = y[i]; y[i] = y[j]; y[j] = t;
+            t = value[i]; value[i] = value[j]; value[j] = t;
+        }
+    }
+
+    /**
+     * Bounded max heap of the nearest stations found so far, one per thread.
+     */
+    static class Worker {
+        final double[] distance;
+        final int[] index;
+        int size;
+
+        Worker(int k) {
+            distance = new double[k];
+            index = new int[k];
+        }
+
+        void search(KdTree tree, double qx, double qy) {
+            size = 0;
+            search(tree, 0, tree.size, 0, qx, qy);
+        }
+
+        private void search(KdTree tree, int lo, int hi, int depth, double qx, double qy) {
+            if (lo >= hi)
+                return;
+            int mid = (lo + hi) >>> 1;
+            double dx = qx - tree.x[mid];
+            double dy = qy - tree.y[mid];
+            offer(dx * dx + dy * dy, mid);
+            double diff = (depth & 1) == 0 ? dx : dy;
+            if (diff < 0) {
+                search(tree, lo, mid, depth + 1, qx, qy);
+                if (size < distance.length || diff * diff < distance[0])
+                    search(tree, mid + 1, hi, depth + 1, qx, qy);
+            } else {
+                search(tree, mid + 1, hi, depth + 1, qx, qy);
+                if (size < distance.length || diff * diff < distance[0])
+                    search(tree, lo, mid, depth + 1, qx, qy);
+            }
+        }
+
+        private void offer(double d, int i) {
+            int pos;
+            if (size < distance.length) {
+                // Sift up
+                pos = size++;
+                while (pos > 0) {
+                    int parent = (pos - 1) >> 1;
+                    if (distance[parent] >= d)
+                        break;
+                    distance[pos] = distance[parent];
+                    index[pos] = index[parent];
+                    pos = parent;
+                }
+            } else if (d < distance[0]) {
+                // Replace the root and sift down
+                pos = 0;
+                while (true) {
+                    int child = 2 * pos + 1;
+                    if (child >= size)
+                        break;
+                    if (child + 1 < size && distance[child + 1] > distance[child])
+                        child++;
+                    if (distance[child] <= d)
+                        break;
+                    distance[pos] = distance[child];
+                    index[pos] = index[child];
+                    pos = child;
+                }
+            } else {
+                return;
+            }
+            distance[pos] = d;
+            index[pos] = i;
+        }
+
+        double interpolate(KdTree tree, int cell, double power) {
+            search(tree, CELL_X[cell], CELL_Y[cell]);
+            double weightSum = 0, valueSum = 0;
+            for (int i = 0; i < size; i++) {
+                double d = Math.sqrt(distance[i]);
+                if (d < MIN_DISTANCE)
+                    return tree.value[index[i]];
+                double weight = power == 2 ? 1 / distance[i] : 1 / Math.pow(d, power);
+                weightSum += weight;
+                valueSum += weight * tree.value[index[i]];
+            }
+            return valueSum / weightSum;
+        }
+    }
+
+    final double power;
+    final KdTree tree = new KdTree();
+    final Worker[] workers;
+    final ExecutorService executorService;
+    final AtomicInteger nextRow = new AtomicInteger();
+
+    // Reused projection buffers
+    double[] stationX = new double[0], stationY = new double[0];
+
+    StationGridder(int k, double power, int threads) {
+        this.power = power;
+        this.workers = new Worker[threads];
+        for (int i = 0; i < threads; i++)
+            workers[i] = new Worker(k);
+        this.executorService = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * Interpolates the values of count stations at the given coordinates onto
+     * all grid cells. Cells are set to Double.NaN if there is no station.
+     */
+    void grid(double[] lon, double[] lat, double[] values, int count, final double[] result)
+        throws InterruptedException, ExecutionException {
+
+        if (count == 0) {
+            for (int i = 0; i < result.length; i++)
+                result[i] = Double.NaN;
+            return;
+        }
+        if (stationX.length < count) {
+            stationX = new double[count];
+            stationY = new double[count];
+        }
+        for (int i = 0; i < count; i++) {
+            stationX[i] = projectX(lon[i]);
+            stationY[i] = projectY(lat[i]);
+        }
+        tree.build(stationX, stationY, values, count);
+
+        nextRow.set(0);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (final Worker worker : workers) {
+            futures.add(executorService.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    int row;
+                    while ((row = nextRow.getAndAdd(ROWS_PER_TASK)) < Grid.SIZE) {
+                        int end = Math.min(row + ROWS_PER_TASK, Grid.SIZE) * Grid.SIZE;
+                        for (int cell = row * Grid.SIZE; cell < end; cell++)
+                            result[cell] = worker.interpolate(tree, cell, power);
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> future : futures)
+            future.get();
+    }
+
+    void shutdown() {
+        executorService.shutdown();
+    }
+
+    /**
+     * Rounds to tenths as used by the DWD for station data and by the
+     * RADOLAN RW product, NaN becomes NODATA.
+     */
+    static void toTenths(double[] values, int[] tenths) {
+        for (int i = 0; i < values.length; i++)
+            tenths[i] = Double.isNaN(values[i]) ? NODATA
+                : (int) Math.round(values[i] * 10);
+    }
+
+    static Map<Integer, double[]> readStationLocations(String file) throws IOException {
+        BufferedReader reader = new BufferedReader(
+            new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        Map<Integer, double[]> locations = new HashMap<Integer, double[]>();
+        String line = reader.readLine();
+        while ((line = reader.readLine()) != null) {
+            String[] parts = line.split(";");
+            locations.put(Integer.parseInt(parts[0]), new double[] {
+                Double.parseDouble(parts[3]), Double.parseDouble(parts[4]) });
+        }
+        reader.close();
+        return locations;
+    }
+
+    /**
+     * Turns the timestamps of the hourly CSV files, which are written in the
+     * default time zone, back into instants. When the clocks are set back
+     * the same timestamp appears twice in a row for a station, the second
+     * one is then taken as the following hour.
+     */
+    static class TimeResolver {
+        static final long HOUR = 3600000L;
+
+        final DateFormat dateFormat =
+            new SimpleDateFormat(ImportWeatherData.CSV_DATE_TIME_FORMAT);
+        final Map<String, Long> instants = new HashMap<String, Long>();
+        final String[] lastTimes;
+        final long[] lastInstants;
+
+        TimeResolver(int stations) {
+            lastTimes = new String[stations];
+            lastInstants = new long[stations];
+        }
+
+        long resolve(int station, String time) throws IOException {
+            long instant;
+            if (time.equals(lastTimes[station])) {
+                instant = lastInstants[station] + HOUR;
+                if (!dateFormat.format(new Date(instant)).equals(time))
+                    throw new IOException("Duplicate row of a station at " + time);
+            } else {
+                Long first = instants.get(time);
+                if (first == null) {
+                    try {
+                        first = dateFormat.parse(time).getTime();
+                    } catch (ParseException e) {
+                        throw new IOException("Invalid time " + time, e);
+                    }
+                    // Ambiguous times are parsed as the later of both hours
+                    if (dateFormat.format(new Date(first - HOUR)).equals(time))
+                        first -= HOUR;
+                    instants.put(time, first);
+                }
+                instant = first;
+            }
+            lastTimes[station] = time;
+            lastInstants[station] = instant;
+            return instant;
+        }
+    }
+
+    /**
+     * Grids one value column of an hourly CSV file written by
+     * ImportWeatherData into one file per hour, named by its UTC time like
+     * the RADOLAN files. The file is ordered by station, so it is read twice:
+     * first to count the rows of every hour, then to put the station and
+     * value of each row into flat arrays at the offset of its hour.
+     */
+    static void gridFile(StationGridder gridder, Map<Integer, double[]> locations,
+        String inputFile, int column, String outputDir, String prefix)
+        throws IOException, InterruptedException, ExecutionException {
+
+        // Index of every station into the location arrays
+        Map<Integer, Integer> stationIndex = new HashMap<Integer, Integer>();
+        double[] stationLon = new double[locations.size()];
+        double[] stationLat = new double[locations.size()];
+        int[] stationIds = new int[locations.size()];
+        for (Map.Entry<Integer, double[]> location : locations.entrySet()) {
+            int index = stationIndex.size();
+            stationIndex.put(location.getKey(), index);
+            stationIds[index] = location.getKey();
+            stationLon[index] = location.getValue()[0];
+            stationLat[index] = location.getValue()[1];
+        }
+
+        // Number of rows and later the next free offset per hour
+        Map<Long, int[]> hours = new HashMap<Long, int[]>();
+        TimeResolver resolver = new TimeResolver(stationIndex.size());
+        BufferedReader reader = new BufferedReader(
+            new InputStreamReader(new FileInputStream(inputFile), "UTF-8"));
+        String line = reader.readLine();
+        while ((line = reader.readLine()) != null) {
+            String[] parts = line.split(";");
+            Integer index = stationIndex.get(Integer.parseInt(parts[0]));
+            if (index == null)
+                continue;
+            long time = resolver.resolve(index, parts[1]);
+            int[] count = hours.get(time);
+            if (count == null) {
+                count = new int[1];
+                hours.put(time, count);
+            }
+            count[0]++;
+        }
+        reader.close();
+
+        // Hours in chronological order with the offsets of their rows
+        long[] times = new long[hours.size()];
+        int n = 0;
+        for (long time : hours.keySet())
+            times[n++] = time;
+        Arrays.sort(times);
+        int[] offsets = new int[times.length + 1];
+        for (int i = 0; i < times.length; i++) {
+            int[] count = hours.get(times[i]);
+            offsets[i + 1] = offsets[i] + count[0];
+            count[0] = offsets[i];
+        }
+
+        int[] rowStations = new int[offsets[times.length]];
+        double[] rowValues = new double[offsets[times.length]];
+        resolver = new TimeResolver(stationIndex.size());
+        reader = new BufferedReader(
+            new InputStreamReader(new FileInputStream(inputFile), "UTF-8"));
+        line = reader.readLine();
+        while ((line = reader.readLine()) != null) {
+            String[] parts = line.split(";");
+            Integer index = stationIndex.get(Integer.parseInt(parts[0]));
+            if (index == null)
+                continue;
+            int row = hours.get(resolver.resolve(index, parts[1]))[0]++;
+            rowStations[row] = index;
+            rowValues[row] = Double.parseDouble(parts[column]);
+        }
+        reader.close();
+
+        new File(outputDir).mkdirs();
+        DateFormat fileDateFormat = new SimpleDateFormat("yyyyMMdd-HHmm");
+        fileDateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        // Last hour each station was seen in, to reject duplicate rows
+        int[] stationHours = new int[stationLon.length];
+        Arrays.fill(stationHours, -1);
+        GridWriter writer = new GridWriter();
+        double[] result = new double[Grid.SIZE * Grid.SIZE];
+        int[] tenths = new int[Grid.SIZE * Grid.SIZE];
+        double[] lon = new double[0], lat = new double[0], values = new double[0];
+        for (int i = 0; i < times.length; i++) {
+            int count = offsets[i + 1] - offsets[i];
+            if (lon.length < count) {
+                lon = new double[count];
+                lat = new double[count];
+                values = new double[count];
+            }
+            for (int j = 0; j < count; j++) {
+                int row = offsets[i] + j;
+                if (stationHours[rowStations[row]] == i)
+                    throw new IOException("Station " + stationIds[rowStations[row]] + " twice at "
+                        + fileDateFormat.format(new Date(times[i])) + " UTC in " + inputFile);
+                stationHours[rowStations[row]] = i;
+                lon[j] = stationLon[rowStations[row]];
+                lat[j] = stationLat[rowStations[row]];
+                values[j] = rowValues[row];
+            }
+            gridder.grid(lon, lat, values, count, result);
+            toTenths(result, tenths);
+            String time = fileDateFormat.format(new Date(times[i]));
+            writer.write(outputDir + "/" + prefix + "_" + time + ".asc", tenths, NODATA);
+        }
+    }
+
+    public static void main(String[] args) throws IOException,
+        InterruptedException, ExecutionException {
+
+        StationGridder gridder = new StationGridder(K, POWER,
+            Runtime.getRuntime().availableProcessors());
+        try {
+            Map<Integer, double[]> locations = readStationLocations("weatherstation.csv");
+            gridFile(gridder, locations, "air_temperature.csv", 2, "grid/air_temperature", "TT");
+            gridFile(gridder, locations, "pressure.csv", 2, "grid/pressure", "PP");
+        } finally {
+            gridder.shutdown();
+        }
+    }
+}
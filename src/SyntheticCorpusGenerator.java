@@ -0,0 +1,365 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates a synthetic corpus in the layout of the DWD server: hourly
+ * station archives with produkt_* entries and station descriptions for
+ * ImportWeatherData, plus RADOLAN RW binary files for BinaryFileImporter.
+ * The values follow simple seasonal and diurnal cycles with noise, so that
+ * the corpus can be used to benchmark and compare imports without network.
+ *
+ * Options are given as name=value, see the fields for their defaults. The
+ * numbers needed to evaluate a run are written to corpus.properties.
+ */
+public class SyntheticCorpusGenerator {
+
+    static final String PROPERTIES_FILE = "corpus.properties";
+
+    static final String HISTORICAL_DATE_FORMAT = "yyyyMMdd";
+    static final String MEASUREMENT_TIME_FORMAT = "yyyyMMddHH";
+    static final String RADAR_DATE_FORMAT = "yyMMddHHmm";
+
+    // Category directories with their file prefixes and produkt_* headers
+    static final String[][] CATEGORIES = {
+        { "air_temperature", "TU", "STATIONS_ID;MESS_DATUM;QN_9;TT_TU;RF_TU;eor" },
+        { "precipitation", "RR", "STATIONS_ID;MESS_DATUM;QN_8;  R1;RS_IND;WRTR;eor" },
+        { "pressure", "P0", "STATIONS_ID;MESS_DATUM;QN_8;   P;  P0;eor" },
+        { "wind", "FF", "STATIONS_ID;MESS_DATUM;QN_3;   F;   D;eor" }
+    };
+
+    static final String[] STATES = {
+        "Baden-Württemberg", "Bayern", "Brandenburg", "Hessen", "Niedersachsen",
+        "Nordrhein-Westfalen", "Sachsen", "Schleswig-Holstein", "Thüringen"
+    };
+
+    // Number of stations, first year and number of years covered
+    int stations = 50;
+    int startYear = 2012;
+    int years = 2;
+    // Share of values replaced by -999
+    double missingRate = 0.02;
+    // Days the recent archives reach back into the historical ones
+    int overlapDays = 30;
+    // Days covered by the recent archives
+    int recentDays = 500;
+    // Hourly radar files starting with startYear, every other one gzipped
+    int radarHours = 24;
+    long seed = 42;
+
+    final Properties properties = new Properties();
+    long rows;
+
+    void generate(String outputDir) throws IOException {
+        Random random = new Random(seed);
+        TimeZone utc = TimeZone.getTimeZone("UTC");
+        Calendar cal = Calendar.getInstance(utc);
+        cal.clear();
+        cal.set(startYear, 0, 1);
+        Date start = cal.getTime();
+        cal.add(Calendar.YEAR, years);
+        Date end = cal.getTime();
+        long hours = (end.getTime() - start.getTime()) / 3600000L;
+        long recentHours = Math.min(hours, recentDays * 24L);
+        long historicalHours = hours - recentHours + Math.min(overlapDays * 24L, recentHours);
+
+        // Station locations spread over Germany
+        int[] ids = new int[stations];
+        double[] lat = new double[stations], lon = new double[stations];
+        int[] alt = new int[stations];
+        for (int i = 0; i < stations; i++) {
+            ids[i] = 1 + i * 97 % 19999;
+            lat[i] = 47.4 + random.nextDouble() * 7.5;
+            lon[i] = 6.0 + random.nextDouble() * 9.0;
+            alt[i] = random.nextInt(1000);
+        }
+
+        DateFormat historicalDateFormat = new SimpleDateFormat(HISTORICAL_DATE_FORMAT);
+        historicalDateFormat.setTimeZone(utc);
+        for (String[] category : CATEGORIES) {
+            File historicalDir = new File(outputDir + "/dwd/" + category[0] + "/historical");
+            File recentDir = new File(outputDir + "/dwd/" + category[0] + "/recent");
+            historicalDir.mkdirs();
+            recentDir.mkdirs();
+            writeStations(new File(historicalDir,
+                category[1] + "_Stundenwerte_Beschreibung_Stationen.txt"),
+                ids, lat, lon, alt, start, end);
+
+            for (int i = 0; i < stations; i++) {
+                Date historicalEnd = new Date(start.getTime() + (historicalHours - 1) * 3600000L);
+                String historicalFile = String.format(Locale.ROOT,
+                    "stundenwerte_%s_%05d_%s_%s_hist.zip", category[1], ids[i],
+                    historicalDateFormat.format(start),
+                    historicalDateFormat.format(historicalEnd));
+                writeArchive(new File(historicalDir, historicalFile), category, ids[i],
+                    alt[i], start, historicalHours);
+
+                Date recentStart = new Date(end.getTime() - recentHours * 3600000L);
+                String recentFile = String.format(Locale.ROOT,
+                    "stundenwerte_%s_%05d_akt.zip", category[1], ids[i]);
+                writeArchive(new File(recentDir, recentFile), category, ids[i],
+                    alt[i], recentStart, recentHours);
+            }
+        }
+
+        // RW products are valid for the hour ending at minute 50
+        File radarDir = new File(outputDir + "/radolan");
+        radarDir.mkdirs();
+        for (int h = 0; h < radarHours; h++)
+            writeRadarFile(radarDir, new Date(start.getTime() + h * 3600000L + 50 * 60000L),
+                h % 2 == 1, random);
+
+        DateFormat dateFormat = new SimpleDateFormat(MEASUREMENT_TIME_FORMAT);
+        dateFormat.setTimeZone(utc);
+        properties.setProperty("from", dateFormat.format(start));
+        properties.setProperty("to", dateFormat.format(end));
+        properties.setProperty("stations", String.valueOf(stations));
+        properties.setProperty("rows", String.valueOf(rows));
+        properties.setProperty("radarFiles", String.valueOf(radarHours));
+        OutputStream out = new FileOutputStream(new File(outputDir, PROPERTIES_FILE));
+        properties.store(out, "Synthetic DWD corpus");
+        out.close();
+    }
+
+    void writeStations(File file, int[] ids, double[] lat, double[] lon, int[] alt,
+        Date start, Date end) throws IOException {
+
+        DateFormat dateFormat = new SimpleDateFormat(HISTORICAL_DATE_FORMAT);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        Writer writer = new BufferedWriter(
+            new OutputStreamWriter(new FileOutputStream(file), "ISO-8859-1"));
+        writer.write("Stations_id von_datum bis_datum Stationshoehe geoBreite geoLaenge "
+            + "Stationsname Bundesland\r\n");
+        writer.write("----------- --------- --------- ------------- --------- --------- "
+            + "----------------------------------------- ----------\r\n");
+        for (int i = 0; i < ids.length; i++) {
+            // Fixed columns as expected by ImportWeatherData.readStations
+            writer.write(String.format(Locale.ROOT, "%6d %8s %8s %14d %11.4f %9.4f %-40s %s\r\n",
+                ids[i], dateFormat.format(start), dateFormat.format(end), alt[i],
+                lat[i], lon[i], "Station " + ids[i], STATES[i % STATES.length]));
+        }
+        writer.close();
+    }
+
+    /**
+     * Writes the archive of a station for the given hours. The values of an
+     * hour only depend on seed, category, station and hour, so that the
+     * historical and the recent archive agree where they overlap.
+     */
+    void writeArchive(File file, String[] category, int id, int alt, Date start,
+        long hours) throws IOException {
+
+        DateFormat dateFormat = new SimpleDateFormat(HISTORICAL_DATE_FORMAT);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file));
+        zip.putNextEntry(new ZipEntry(String.format(Locale.ROOT,
+            "Metadaten_Geographie_%05d.txt", id)));
+        zip.write(("Stations_id;Stationshoehe;Geogr.Breite;Geogr.Laenge;von_datum;bis_datum;"
+            + "Stationsname\r\n").getBytes("ISO-8859-1"));
+        zip.closeEntry();
+
+        zip.putNextEntry(new ZipEntry(String.format(Locale.ROOT,
+            "produkt_%s_stunde_%s_%05d.txt", category[1].toLowerCase(Locale.ROOT),
+            dateFormat.format(start), id)));
+        Writer writer = new BufferedWriter(new OutputStreamWriter(zip, "ISO-8859-1"), 1 << 16);
+        writer.write(category[2]);
+        writer.write("\r\n");
+        Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        StringBuilder line = new StringBuilder();
+        Random random = new Random();
+        for (long h = 0; h < hours; h++) {
+            long time = start.getTime() + h * 3600000L;
+            random.setSeed(hourSeed(category[1], id, time / 3600000L));
+            cal.setTimeInMillis(time);
+            double season = Math.cos(2 * Math.PI * (cal.get(Calendar.DAY_OF_YEAR) - 200) / 365.0);
+            double day = Math.cos(2 * Math.PI * (cal.get(Calendar.HOUR_OF_DAY) - 14) / 24.0);
+            line.setLength(0);
+            pad(line, String.valueOf(id), 11);
+            line.append(';');
+            appendTime(line, cal);
+            line.append(';');
+            switch (category[1]) {
+            case "TU":
+                pad(line, "3", 5);
+                value(line, 9 + 9 * season + 4 * day - alt / 150.0 + random.nextGaussian(),
+                    1, 6, random);
+                value(line, Math.min(100, 75 - 15 * day + 5 * random.nextGaussian()),
+                    1, 6, random);
+                break;
+            case "RR":
+                boolean hasFallen = random.nextDouble() < 0.12;
+                pad(line, "3", 5);
+                value(line, hasFallen ? 0.1 * random.nextInt(40) : 0, 1, 6, random);
+                line.append(';');
+                pad(line, hasFallen ? "1" : "0", 4);
+                line.append(';');
+                pad(line, String.valueOf(hasFallen ? random.nextInt(10) : 0), 4);
+                break;
+            case "P0":
+                double pressure = 1013 + 8 * random.nextGaussian();
+                pad(line, "8", 5);
+                value(line, pressure, 1, 6, random);
+                value(line, pressure - alt / 8.3, 1, 6, random);
+                break;
+            default:
+                pad(line, "10", 5);
+                value(line, Math.abs(3.5 + 2 * random.nextGaussian()), 1, 6, random);
+                value(line, 10 * random.nextInt(37), 0, 4, random);
+            }
+            line.append(";eor\r\n");
+            writer.append(line);
+            rows++;
+        }
+        writer.flush();
+        zip.closeEntry();
+        zip.close();
+    }
+
+    // Final mixing step of MurmurHash3 over all parts of the key
+    long hourSeed(String category, int id, long hour) {
+        long h = seed;
+        for (long key : new long[] { category.hashCode(), id, hour }) {
+            h = (h ^ key) * 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb9fe1a85ec53L;
+            h ^= h >>> 33;
+        }
+        return h;
+    }
+
+    static void pad(StringBuilder line, String value, int width) {
+        for (int i = value.length(); i < width; i++)
+            line.append(' ');
+        line.append(value);
+    }
+
+    static void appendTime(StringBuilder line, Calendar cal) {
+        int[] fields = {
+            cal.get(Calendar.YEAR), cal.get(Calendar.MONTH) + 1,
+            cal.get(Calendar.DAY_OF_MONTH), cal.get(Calendar.HOUR_OF_DAY)
+        };
+        line.append(fields[0]);
+        for (int i = 1; i < fields.length; i++) {
+            if (fields[i] < 10)
+                line.append('0');
+            line.append(fields[i]);
+        }
+    }
+
+    /**
+     * Appends a semicolon and the value right aligned with no or one decimal
+     * place, or -999 at the configured rate.
+     */
+    void value(StringBuilder line, double value, int decimals, int width, Random random) {
+        line.append(';');
+        if (random.nextDouble() < missingRate) {
+            pad(line, "-999", width);
+            return;
+        }
+        long scaled = Math.round(Math.abs(value) * (decimals == 0 ? 1 : 10));
+        String digits = decimals == 0 ? String.valueOf(scaled)
+            : scaled / 10 + "." + scaled % 10;
+        pad(line, value < 0 && scaled != 0 ? "-" + digits : digits, width);
+    }
+
+    /**
+     * Writes a RW product: ASCII header terminated by ETX followed by
+     * little-endian 16 bit values, 12 bits of tenths of mm and flags.
+     */
+    void writeRadarFile(File dir, Date date, boolean gzip, Random random) throws IOException {
+        TimeZone utc = TimeZone.getTimeZone("UTC");
+        DateFormat dateFormat = new SimpleDateFormat(RADAR_DATE_FORMAT);
+        DateFormat dayTimeFormat = new SimpleDateFormat("ddHHmm");
+        DateFormat monthYearFormat = new SimpleDateFormat("MMyy");
+        dateFormat.setTimeZone(utc);
+        dayTimeFormat.setTimeZone(utc);
+        monthYearFormat.setTimeZone(utc);
+        String name = "raa01-rw_10000-" + dateFormat.format(date) + "-dwd---bin";
+        int length = Grid.SIZE * Grid.SIZE * 2;
+        // BY holds the product length including header and ETX
+        String template = "RW%s10000%sBY%7dVS 3SW   2.17.0PR E-01INT  60GP 900x 900MS 58<"
+            + "asb,boo,ros,hnr,umd,pro,ess,fld,drs,neu,nhb,oft,eis,tur,isn,fbg,mem> ";
+        int headerLength = String.format(Locale.ROOT, template, dayTimeFormat.format(date),
+            monthYearFormat.format(date), 0).length();
+        String header = String.format(Locale.ROOT, template, dayTimeFormat.format(date),
+            monthYearFormat.format(date), headerLength + 1 + length);
+        byte[] bytes = new byte[header.length() + 1 + length];
+        for (int i = 0; i < header.length(); i++)
+            bytes[i] = (byte) header.charAt(i);
+        bytes[header.length()] = 0x03;
+
+        // A few rain cells on a dry background, the border is outside coverage
+        int cells = 5 + random.nextInt(10);
+        double[] cx = new double[cells], cy = new double[cells], r = new double[cells];
+        for (int c = 0; c < cells; c++) {
+            cx[c] = random.nextInt(Grid.SIZE);
+            cy[c] = random.nextInt(Grid.SIZE);
+            r[c] = 10 + random.nextInt(60);
+        }
+        int offset = header.length() + 1;
+        for (int y = 0; y < Grid.SIZE; y++) {
+            for (int x = 0; x < Grid.SIZE; x++) {
+                int bits;
+                double dx = x - Grid.SIZE / 2, dy = y - Grid.SIZE / 2;
+                if (dx * dx + dy * dy > 440 * 440 || random.nextDouble() < missingRate / 10) {
+                    bits = 0x29c4;
+                } else {
+                    double rain = 0;
+                    for (int c = 0; c < cells; c++) {
+                        double ex = (x - cx[c]) / r[c], ey = (y - cy[c]) / r[c];
+                        rain += 80 * Math.exp(-(ex * ex + ey * ey));
+                    }
+                    bits = Math.min(0xfff, (int) rain);
+                }
+                bytes[offset++] = (byte) bits;
+                bytes[offset++] = (byte) (bits >> 8);
+            }
+        }
+
+        OutputStream out = new FileOutputStream(new File(dir, gzip ? name + ".gz" : name));
+        if (gzip)
+            out = new GZIPOutputStream(out);
+        out.write(bytes);
+        out.close();
+    }
+
+    public static void main(String[] args) throws IOException {
+        SyntheticCorpusGenerator generator = new SyntheticCorpusGenerator();
+        String outputDir = "corpus";
+        for (String arg : args) {
+            String[] parts = arg.split("=", 2);
+            String name = parts[0].replaceFirst("^--", "");
+            String value = parts.length > 1 ? parts[1] : "";
+            switch (name) {
+            case "dir": outputDir = value; break;
+            case "stations": generator.stations = Integer.parseInt(value); break;
+            case "startYear": generator.startYear = Integer.parseInt(value); break;
+            case "years": generator.years = Integer.parseInt(value); break;
+            case "missingRate": generator.missingRate = Double.parseDouble(value); break;
+            case "overlapDays": generator.overlapDays = Integer.parseInt(value); break;
+            case "recentDays": generator.recentDays = Integer.parseInt(value); break;
+            case "radarHours": generator.radarHours = Integer.parseInt(value); break;
+            case "seed": generator.seed = Long.parseLong(value); break;
+            default: throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        generator.generate(outputDir);
+        System.out.println(generator.rows + " rows, " + generator.radarHours
+            + " radar files in " + outputDir);
+    }
+}